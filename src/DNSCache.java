@@ -1,15 +1,34 @@
-import java.util.HashMap;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
 
 // DNSCache stores DNS answers and handels TTL expiration
 public class DNSCache {
 
 
-    // store values as key value, ket DNSQuestion, Value DNSRecord
-    private final HashMap<DNSQuestion, CacheEntry> cache = new HashMap<>();
+    // store values as key value, key is the question in wire format, Value DNSRecord
+    // concurrent map because the I/O thread reads while miss workers write
+    private final ConcurrentHashMap<QuestionKey, CacheEntry> cache = new ConcurrentHashMap<>();
+
+    // how long past its TTL we keep an entry around to serve stale (RFC 8767)
+    private final long staleWindowSeconds;
+
+    public DNSCache() {
+        this(0);
+    }
+
+    public DNSCache(long staleWindowSeconds) {
+        this.staleWindowSeconds = staleWindowSeconds;
+    }
 
 
     // now I look for cached record if it was found or not
     public CacheEntry get(DNSQuestion question) {
+        return get(QuestionKey.of(question));
+    }
+
+    // same as get(DNSQuestion) but with a key read straight from the packet
+    public CacheEntry get(QuestionKey question) {
         CacheEntry record = cache.get(question);
 
         // check if null
@@ -17,28 +36,142 @@ public class DNSCache {
             return null;
         }
 
-        // check if expired
+        // check if expired, keep it for getStale while inside the window
         if (record.isExpired()) {
-            cache.remove(question);
+            evictIfPastStaleWindow(question, record);
             return null;
         }
 
         return record;
     }
 
+    // expired entry that is still inside the stale window, null otherwise
+    public CacheEntry getStale(DNSQuestion question) {
+        return getStale(QuestionKey.of(question));
+    }
+
+    public CacheEntry getStale(QuestionKey question) {
+        CacheEntry record = cache.get(question);
+
+        if (record == null || !record.isExpired()) {
+            return null;
+        }
+
+        if (evictIfPastStaleWindow(question, record)) {
+            return null;
+        }
+
+        return record;
+    }
+
+    private boolean evictIfPastStaleWindow(QuestionKey question, CacheEntry record) {
+        long staleUntil = record.createdAtMillis + (record.ttlSeconds + staleWindowSeconds) * 1000L;
+        if (System.currentTimeMillis() > staleUntil) {
+            // only remove this exact entry, a worker may have refreshed it already
+            cache.remove(question, record);
+            return true;
+        }
+        return false;
+    }
+
     // store record in chase
-    public void put(DNSQuestion question, byte[] responseBytes, long ttlSeconds) {
-        cache.put(question, new CacheEntry(responseBytes, ttlSeconds));
+    public void put(DNSQuestion question, byte[] responseBytes, long ttlSeconds) throws IOException {
+        cache.put(QuestionKey.of(question), new CacheEntry(responseBytes, ttlSeconds));
+    }
+
+    /**
+     * Cache key: the question (QNAME labels, QTYPE, QCLASS) in wire format.
+     * A key can also point into a received packet without copying, so the
+     * I/O thread can look up hits with one reused key and no decoding.
+     */
+    public static final class QuestionKey {
+        private byte[] bytes;
+        private int offset;
+        private int length;
+        private int hash;
+
+        // empty key, fill it with wrapQuestion
+        public QuestionKey() {
+        }
+
+        private QuestionKey(byte[] bytes) {
+            set(bytes, 0, bytes.length);
+        }
+
+        public static QuestionKey of(DNSQuestion question) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            question.encodeQuestion(out);
+            return new QuestionKey(out.toByteArray());
+        }
+
+        /**
+         * Point this key at the question of a plain query (one question,
+         * no compression pointer) in message. Returns false when the packet
+         * is not like that, and the caller should fall back to decoding.
+         */
+        public boolean wrapQuestion(byte[] message, int messageLength) {
+            if (messageLength < 12) return false;
+            if ((message[2] & 0x80) != 0) return false; // QR=1, not a query
+            if (message[4] != 0 || message[5] != 1) return false; // QDCOUNT must be 1
+
+            int pos = 12;
+            while (true) {
+                if (pos >= messageLength) return false;
+                int len = message[pos] & 0xFF;
+                if (len == 0) break;
+                if ((len & 0xC0) != 0) return false; // pointer or reserved bits
+                pos += 1 + len;
+            }
+            int end = pos + 1 + 4; // root label + QTYPE + QCLASS
+            if (end > messageLength) return false;
+
+            set(message, 12, end - 12);
+            return true;
+        }
+
+        private void set(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+
+            int h = 1;
+            for (int i = offset; i < offset + length; i++) {
+                h = 31 * h + bytes[i];
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof QuestionKey)) return false;
+            QuestionKey that = (QuestionKey) o;
+            if (hash != that.hash || length != that.length) return false;
+            for (int i = 0; i < length; i++) {
+                if (bytes[offset + i] != that.bytes[that.offset + i]) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
     }
 
     public static class CacheEntry {
         public final byte[] responseBytes;
         public final long createdAtMillis;
         public final long ttlSeconds;
+        // where every TTL field sits in responseBytes, found once on insert
+        public final int[] ttlOffsets;
+        // last time upstream failed to refresh this entry, 0 if never
+        public volatile long refreshFailedAtMillis;
 
-        public CacheEntry(byte[] responseBytes, long ttlSeconds) {
+        public CacheEntry(byte[] responseBytes, long ttlSeconds) throws IOException {
             this.responseBytes = responseBytes;
             this.ttlSeconds = ttlSeconds;
+            this.ttlOffsets = DNSMessage.findTtlOffsets(responseBytes);
             this.createdAtMillis = System.currentTimeMillis();
         }
 
@@ -46,5 +179,59 @@ public class DNSCache {
             long expiresAt = createdAtMillis + ttlSeconds * 1000L;
             return System.currentTimeMillis() > expiresAt;
         }
+
+        /**
+         * Copy the cached response into out for one client, no allocation.
+         * Patches the ID from the request and writes TTLs counted down by the
+         * time spent in cache, never past our own expiry.
+         *
+         * @param out          send buffer, must be at least responseBytes.length
+         * @param requestBytes the client's query (ID is taken from bytes 0-1)
+         * @return number of bytes written
+         */
+        public int writeResponse(byte[] out, byte[] requestBytes) {
+            int length = copyWithId(out, requestBytes);
+
+            long elapsedSeconds = (System.currentTimeMillis() - createdAtMillis) / 1000L;
+            long entryRemaining = Math.max(0, ttlSeconds - elapsedSeconds);
+
+            for (int offset : ttlOffsets) {
+                long ttl = ((responseBytes[offset] & 0xFFL) << 24)
+                        | ((responseBytes[offset + 1] & 0xFFL) << 16)
+                        | ((responseBytes[offset + 2] & 0xFFL) << 8)
+                        | (responseBytes[offset + 3] & 0xFFL);
+
+                long remaining = Math.min(Math.max(0, ttl - elapsedSeconds), entryRemaining);
+                writeTtl(out, offset, remaining);
+            }
+            return length;
+        }
+
+        /**
+         * Same as writeResponse but for an expired entry: every TTL is set to
+         * staleTtlSeconds so clients come back soon for fresh data.
+         */
+        public int writeStaleResponse(byte[] out, byte[] requestBytes, long staleTtlSeconds) {
+            int length = copyWithId(out, requestBytes);
+            for (int offset : ttlOffsets) {
+                writeTtl(out, offset, staleTtlSeconds);
+            }
+            return length;
+        }
+
+        private int copyWithId(byte[] out, byte[] requestBytes) {
+            int length = responseBytes.length;
+            System.arraycopy(responseBytes, 0, out, 0, length);
+            out[0] = requestBytes[0];
+            out[1] = requestBytes[1];
+            return length;
+        }
+
+        private static void writeTtl(byte[] out, int offset, long ttl) {
+            out[offset] = (byte) (ttl >>> 24);
+            out[offset + 1] = (byte) (ttl >>> 16);
+            out[offset + 2] = (byte) (ttl >>> 8);
+            out[offset + 3] = (byte) ttl;
+        }
     }
-}
\ No newline at end of file
+}
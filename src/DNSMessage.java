@@ -64,6 +64,55 @@ public class DNSMessage {
         return new DNSMessage(header, question, answers, authorities, additionals, bytes);
     }
 
+    /**
+     * Find the byte offset of every TTL field in a raw DNS message.
+     * Walks the same sections as decodeMessage but only skips over them,
+     * so the cache can rewrite TTLs in place without decoding again.
+     * OPT records (type 41) are skipped because their TTL field holds EDNS flags.
+     */
+    public static int[] findTtlOffsets(byte[] bytes) throws IOException {
+        if (bytes.length < 12) throw new IOException("Message shorter than header");
+
+        int qdCount = ((bytes[4] & 0xFF) << 8) | (bytes[5] & 0xFF);
+        int rrCount = 0;
+        for (int i = 6; i < 12; i += 2) {
+            rrCount += ((bytes[i] & 0xFF) << 8) | (bytes[i + 1] & 0xFF);
+        }
+
+        int pos = 12;
+        for (int i = 0; i < qdCount; i++) {
+            pos = skipName(bytes, pos) + 4; // QTYPE + QCLASS
+        }
+
+        int[] offsets = new int[rrCount];
+        int found = 0;
+        for (int i = 0; i < rrCount; i++) {
+            pos = skipName(bytes, pos);
+            if (pos + 10 > bytes.length) throw new IOException("EOF while reading record");
+
+            int type = ((bytes[pos] & 0xFF) << 8) | (bytes[pos + 1] & 0xFF);
+            int rdLength = ((bytes[pos + 8] & 0xFF) << 8) | (bytes[pos + 9] & 0xFF);
+            if (type != 41) {
+                offsets[found++] = pos + 4; // after TYPE and CLASS
+            }
+            pos += 10 + rdLength;
+        }
+        if (pos > bytes.length) throw new IOException("EOF while reading RDATA");
+
+        return found == offsets.length ? offsets : Arrays.copyOf(offsets, found);
+    }
+
+    // skip a NAME and return the offset right after it (pointers end the name)
+    private static int skipName(byte[] bytes, int pos) throws IOException {
+        while (true) {
+            if (pos >= bytes.length) throw new IOException("EOF while skipping NAME");
+            int len = bytes[pos] & 0xFF;
+            if (len == 0) return pos + 1;
+            if ((len & 0xC0) == 0xC0) return pos + 2;
+            pos += 1 + len;
+        }
+    }
+
     @Override
     public String toString() {
         return "DNSMessage{\n" +
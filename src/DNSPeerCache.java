@@ -0,0 +1,463 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Optional peer cache tier shared by several resolver instances.
+ *
+ * Every instance knows the same peer list and puts it on a consistent hash ring,
+ * so all of them agree which peer "owns" a question. On a local miss we ask the
+ * owner before going to google. Peers only answer from their own cache and never
+ * forward, so a lookup is one small UDP round trip or a quick miss. When we had to
+ * go to google for a name another peer owns, we push the answer to that owner so
+ * the next instance that misses on it finds it there. Pushes are only sent and
+ * accepted when the instances share a secret: each one carries an HMAC-SHA256 and
+ * a timestamp, so a host that fakes a peer's address can not plant answers.
+ *
+ * A peer that keeps timing out is skipped for a while so it can not slow misses down.
+ *
+ * Wire format (big-endian):
+ *   request:  'M' 'P' version type=GET  id(2) question (DNS wire format)
+ *   response: 'M' 'P' version type=HIT  id(2) ttl(4) length(2) DNS response bytes
+ *             'M' 'P' version type=MISS id(2)
+ *   push:     'M' 'P' version type=PUT  id(2) timestamp(8) ttl(4) length(2) DNS response bytes
+ *             hmac(32) over everything before it (no reply)
+ */
+public class DNSPeerCache {
+    private static final byte MAGIC_1 = 'M';
+    private static final byte MAGIC_2 = 'P';
+    private static final byte VERSION = 1;
+    private static final byte TYPE_GET = 1;
+    private static final byte TYPE_HIT = 2;
+    private static final byte TYPE_MISS = 3;
+    private static final byte TYPE_PUT = 4;
+
+    // this many failed lookups in a row and we stop asking a peer for a while
+    private static final int FAILURES_BEFORE_DOWN = 3;
+    private static final long PEER_DOWN_MS = 30000;
+
+    // never trust a peer's TTL further than this
+    private static final long MAX_PEER_TTL_SECONDS = 3600;
+
+    // pushes older (or newer) than this are replays or clock trouble, ignore them
+    private static final long PUSH_MAX_AGE_MS = 30000;
+
+    private static final int PUSH_HEADER = 20;
+    private static final int MAC_LENGTH = 32;
+
+    // points per peer on the ring so keys spread evenly
+    private static final int VIRTUAL_NODES = 64;
+
+    private final DNSCache cache;
+    private final InetSocketAddress self;
+    private final int timeoutMs;
+
+    // shared HMAC key for pushes, null means pushes are off
+    private final SecretKeySpec pushKey;
+
+    // hash point -> peer that owns the keys up to that point
+    private final TreeMap<Long, InetSocketAddress> ring = new TreeMap<>();
+
+    // hosts allowed to talk to our peer port, everyone else is ignored
+    private final Set<InetAddress> peerHosts = new HashSet<>();
+
+    // random request ids so an off-path host can not guess them
+    private final SecureRandom random = new SecureRandom();
+
+    // consecutive failures and down-until time for each peer
+    private final ConcurrentHashMap<InetSocketAddress, PeerHealth> health = new ConcurrentHashMap<>();
+
+    // metrics
+    private final AtomicLong peerHits = new AtomicLong();
+    private final AtomicLong peerMisses = new AtomicLong();
+    private final AtomicLong peerTimeouts = new AtomicLong();
+
+    /**
+     * @param cache     local cache we answer peer lookups from
+     * @param self      address peers use to reach this instance
+     * @param peers     every instance in the group, self is added if missing
+     * @param timeoutMs how long we wait for a peer before going upstream
+     */
+    public DNSPeerCache(DNSCache cache, InetSocketAddress self, List<InetSocketAddress> peers, int timeoutMs) {
+        this(cache, self, peers, timeoutMs, null);
+    }
+
+    /**
+     * @param pushSecret key every instance shares to sign pushes, null turns pushes off
+     */
+    public DNSPeerCache(DNSCache cache, InetSocketAddress self, List<InetSocketAddress> peers, int timeoutMs,
+                        byte[] pushSecret) {
+        this.cache = cache;
+        this.self = self;
+        this.timeoutMs = timeoutMs;
+        this.pushKey = pushSecret != null && pushSecret.length > 0
+                ? new SecretKeySpec(pushSecret, "HmacSHA256") : null;
+
+        addToRing(self);
+        for (InetSocketAddress peer : peers) {
+            addToRing(peer);
+        }
+    }
+
+    private void addToRing(InetSocketAddress peer) {
+        peerHosts.add(peer.getAddress());
+        String id = peer.getAddress().getHostAddress() + ":" + peer.getPort();
+        for (int i = 0; i < VIRTUAL_NODES; i++) {
+            ring.put(hash(id + "#" + i), peer);
+        }
+    }
+
+    // which instance owns this question
+    public InetSocketAddress ownerOf(DNSQuestion question) {
+        long h = hash(question.getQName() + "/" + question.getQType() + "/" + question.getQClass());
+        Map.Entry<Long, InetSocketAddress> entry = ring.ceilingEntry(h);
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    public boolean isSelf(InetSocketAddress peer) {
+        return peer.equals(self);
+    }
+
+    // address the peer listener binds to, the one the other instances use to reach us
+    public InetSocketAddress getSelf() {
+        return self;
+    }
+
+    // first 8 bytes of MD5 so every instance (and JVM) gets the same ring
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i++) {
+                h = (h << 8) | (digest[i] & 0xFF);
+            }
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+
+    /**
+     * Ask the owning peer for a question. On a hit the answer is stored in the
+     * local cache with the TTL the peer had left and true is returned.
+     * Returns false if we own the key, the peer misses, or it is too slow.
+     */
+    public boolean fetchFromPeer(DNSQuestion question) {
+        InetSocketAddress owner = ownerOf(question);
+        if (isSelf(owner)) {
+            return false;
+        }
+
+        // owner looks dead, go straight to google instead of paying the timeout again
+        PeerHealth ownerHealth = healthOf(owner);
+        if (ownerHealth.isDown()) {
+            return false;
+        }
+
+        int id = random.nextInt(0x10000);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(MAGIC_1);
+        out.write(MAGIC_2);
+        out.write(VERSION);
+        out.write(TYPE_GET);
+        out.write(id >> 8);
+        out.write(id);
+        question.encodeQuestion(out);
+        byte[] request = out.toByteArray();
+
+        try (DatagramSocket peerSocket = new DatagramSocket()) {
+            peerSocket.setSoTimeout(timeoutMs); // a peer must never slow us down
+            // connected socket: the OS drops replies from anyone but the owner
+            peerSocket.connect(owner);
+            peerSocket.send(new DatagramPacket(request, request.length, owner));
+
+            byte[] buf = new byte[12 + 512];
+            DatagramPacket reply = new DatagramPacket(buf, buf.length);
+            peerSocket.receive(reply);
+
+            // any reply at all means the peer is alive
+            ownerHealth.recordSuccess();
+
+            byte[] data = reply.getData();
+            int length = reply.getLength();
+            if (length < 6 || !owner.equals(reply.getSocketAddress()) || data[0] != MAGIC_1 || data[1] != MAGIC_2 || data[2] != VERSION
+                    || (((data[4] & 0xFF) << 8) | (data[5] & 0xFF)) != id) {
+                System.out.println("Ignoring bad peer reply from " + owner);
+                peerMisses.incrementAndGet();
+                return false;
+            }
+
+            if (data[3] != TYPE_HIT || length < 12) {
+                long misses = peerMisses.incrementAndGet();
+                System.out.println("PEER MISS for " + question.getQName() + " at " + owner + ", total=" + misses);
+                return false;
+            }
+
+            long ttl = ((data[6] & 0xFFL) << 24) | ((data[7] & 0xFFL) << 16)
+                    | ((data[8] & 0xFFL) << 8) | (data[9] & 0xFFL);
+            int responseLength = ((data[10] & 0xFF) << 8) | (data[11] & 0xFF);
+            if (ttl == 0 || 12 + responseLength > length) {
+                peerMisses.incrementAndGet();
+                return false;
+            }
+
+            byte[] responseBytes = new byte[responseLength];
+            System.arraycopy(data, 12, responseBytes, 0, responseLength);
+
+            // never cache an answer for some other name
+            if (!answersQuestion(responseBytes, question)) {
+                System.out.println("Peer " + owner + " answered the wrong question, ignoring");
+                peerMisses.incrementAndGet();
+                return false;
+            }
+
+            // keep only the TTL the peer had left, not the original one
+            cache.put(question, responseBytes, Math.min(ttl, MAX_PEER_TTL_SECONDS));
+
+            long hits = peerHits.incrementAndGet();
+            System.out.println("PEER HIT for " + question.getQName() + " from " + owner + ", total=" + hits);
+            return true;
+        } catch (SocketTimeoutException e) {
+            long timeouts = peerTimeouts.incrementAndGet();
+            System.out.println("Peer " + owner + " timed out, total=" + timeouts);
+            recordFailure(owner, ownerHealth);
+            return false;
+        } catch (IOException e) {
+            // e.g. port unreachable on the connected socket when the peer process is gone
+            System.out.println("Peer lookup to " + owner + " failed: " + e);
+            recordFailure(owner, ownerHealth);
+            return false;
+        }
+    }
+
+    /**
+     * Give an answer we got from google to the peer that owns the name, so the
+     * ring actually holds each key on its owner. Fire and forget, no reply.
+     * Does nothing when no push secret is configured.
+     */
+    public void pushToOwner(DNSQuestion question, byte[] responseBytes, long ttl) {
+        InetSocketAddress owner = ownerOf(question);
+        if (pushKey == null || isSelf(owner) || healthOf(owner).isDown() || responseBytes.length > 512) {
+            return;
+        }
+
+        byte[] push = new byte[PUSH_HEADER + responseBytes.length + MAC_LENGTH];
+        push[0] = MAGIC_1;
+        push[1] = MAGIC_2;
+        push[2] = VERSION;
+        push[3] = TYPE_PUT;
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 8; i++) {
+            push[6 + i] = (byte) (now >>> (56 - 8 * i));
+        }
+        ttl = Math.min(ttl, MAX_PEER_TTL_SECONDS);
+        push[14] = (byte) (ttl >>> 24);
+        push[15] = (byte) (ttl >>> 16);
+        push[16] = (byte) (ttl >>> 8);
+        push[17] = (byte) ttl;
+        push[PUSH_HEADER - 2] = (byte) (responseBytes.length >> 8);
+        push[PUSH_HEADER - 1] = (byte) responseBytes.length;
+        System.arraycopy(responseBytes, 0, push, PUSH_HEADER, responseBytes.length);
+
+        try (DatagramSocket peerSocket = new DatagramSocket()) {
+            byte[] mac = hmac(push, PUSH_HEADER + responseBytes.length);
+            System.arraycopy(mac, 0, push, PUSH_HEADER + responseBytes.length, MAC_LENGTH);
+            peerSocket.send(new DatagramPacket(push, push.length, owner));
+        } catch (IOException | GeneralSecurityException e) {
+            System.out.println("Peer push to " + owner + " failed: " + e.getMessage());
+        }
+    }
+
+    private byte[] hmac(byte[] data, int length) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(pushKey);
+        mac.update(data, 0, length);
+        return mac.doFinal();
+    }
+
+    private PeerHealth healthOf(InetSocketAddress peer) {
+        return health.computeIfAbsent(peer, p -> new PeerHealth());
+    }
+
+    private void recordFailure(InetSocketAddress peer, PeerHealth peerHealth) {
+        if (peerHealth.recordFailure()) {
+            System.out.println("Peer " + peer + " marked down for " + PEER_DOWN_MS + "ms");
+        }
+    }
+
+    // after the down period one lookup is let through, another failure marks it down again
+    private static class PeerHealth {
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile long downUntilMillis;
+
+        boolean isDown() {
+            return System.currentTimeMillis() < downUntilMillis;
+        }
+
+        void recordSuccess() {
+            failures.set(0);
+            downUntilMillis = 0;
+        }
+
+        // returns true when this failure marks the peer down
+        boolean recordFailure() {
+            if (failures.incrementAndGet() >= FAILURES_BEFORE_DOWN) {
+                downUntilMillis = System.currentTimeMillis() + PEER_DOWN_MS;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    // true if bytes is a DNS response whose first question is question
+    private static boolean answersQuestion(byte[] responseBytes, DNSQuestion question) {
+        try {
+            DNSMessage msg = DNSMessage.decodeMessage(responseBytes);
+            return (responseBytes[2] & 0x80) != 0
+                    && msg.questions.length > 0
+                    && msg.questions[0].equals(question);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // store a signed answer another peer pushed to us, but only for names we own
+    private void acceptPush(byte[] buf, int length) throws IOException {
+        if (pushKey == null || length < PUSH_HEADER + MAC_LENGTH) return;
+
+        int responseLength = ((buf[PUSH_HEADER - 2] & 0xFF) << 8) | (buf[PUSH_HEADER - 1] & 0xFF);
+        int signedLength = PUSH_HEADER + responseLength;
+        if (signedLength + MAC_LENGTH != length) return;
+
+        // check the signature before looking at anything else
+        byte[] expected;
+        try {
+            expected = hmac(buf, signedLength);
+        } catch (GeneralSecurityException e) {
+            return;
+        }
+        byte[] actual = new byte[MAC_LENGTH];
+        System.arraycopy(buf, signedLength, actual, 0, MAC_LENGTH);
+        if (!MessageDigest.isEqual(expected, actual)) {
+            System.out.println("Ignoring peer push with a bad signature");
+            return;
+        }
+
+        long sentAt = 0;
+        for (int i = 0; i < 8; i++) {
+            sentAt = (sentAt << 8) | (buf[6 + i] & 0xFFL);
+        }
+        if (Math.abs(System.currentTimeMillis() - sentAt) > PUSH_MAX_AGE_MS) return;
+
+        long ttl = ((buf[14] & 0xFFL) << 24) | ((buf[15] & 0xFFL) << 16)
+                | ((buf[16] & 0xFFL) << 8) | (buf[17] & 0xFFL);
+        if (ttl == 0) return;
+
+        byte[] responseBytes = new byte[responseLength];
+        System.arraycopy(buf, PUSH_HEADER, responseBytes, 0, responseLength);
+
+        DNSMessage msg = DNSMessage.decodeMessage(responseBytes);
+        if ((responseBytes[2] & 0x80) == 0 || msg.questions.length == 0) return;
+
+        DNSQuestion question = msg.questions[0];
+        if (!isSelf(ownerOf(question)) || cache.get(question) != null) return;
+
+        cache.put(question, responseBytes, Math.min(ttl, MAX_PEER_TTL_SECONDS));
+        System.out.println("Stored peer push for " + question.getQName());
+    }
+
+    // answer lookups from other instances out of the local cache, runs forever
+    public void serve(DatagramSocket peerSocket) {
+        byte[] buf = new byte[PUSH_HEADER + 512 + MAC_LENGTH];
+        byte[] responseBuf = new byte[512];
+        byte[] replyBuf = new byte[12 + 512];
+
+        while (true) {
+            try {
+                DatagramPacket packet = new DatagramPacket(buf, buf.length);
+                peerSocket.receive(packet);
+
+                // only instances in the ring may read our cache, otherwise anyone could
+                // snoop it or use us to amplify traffic
+                if (!peerHosts.contains(packet.getAddress())) {
+                    continue;
+                }
+
+                int length = packet.getLength();
+                if (length < 7 || buf[0] != MAGIC_1 || buf[1] != MAGIC_2 || buf[2] != VERSION) {
+                    continue;
+                }
+
+                if (buf[3] == TYPE_PUT) {
+                    acceptPush(buf, length);
+                    continue;
+                }
+                if (buf[3] != TYPE_GET) {
+                    continue;
+                }
+
+                byte[] request = new byte[length];
+                System.arraycopy(buf, 0, request, 0, length);
+
+                ByteArrayInputStream in = new ByteArrayInputStream(request, 6, length - 6);
+                DNSQuestion question = DNSQuestion.decodeQuestion(in, request);
+
+                replyBuf[0] = MAGIC_1;
+                replyBuf[1] = MAGIC_2;
+                replyBuf[2] = VERSION;
+                replyBuf[4] = request[4];
+                replyBuf[5] = request[5];
+
+                int replyLength = 6;
+                DNSCache.CacheEntry cached = cache.get(question);
+                if (cached == null) {
+                    replyBuf[3] = TYPE_MISS;
+                } else {
+                    // send TTLs already counted down so the peer does not cache past our expiry
+                    int responseLength = cached.writeResponse(responseBuf, cached.responseBytes);
+                    long elapsedSeconds = (System.currentTimeMillis() - cached.createdAtMillis) / 1000L;
+                    long ttl = Math.max(0, cached.ttlSeconds - elapsedSeconds);
+
+                    replyBuf[3] = TYPE_HIT;
+                    replyBuf[6] = (byte) (ttl >>> 24);
+                    replyBuf[7] = (byte) (ttl >>> 16);
+                    replyBuf[8] = (byte) (ttl >>> 8);
+                    replyBuf[9] = (byte) ttl;
+                    replyBuf[10] = (byte) (responseLength >> 8);
+                    replyBuf[11] = (byte) responseLength;
+                    System.arraycopy(responseBuf, 0, replyBuf, 12, responseLength);
+                    replyLength = 12 + responseLength;
+                }
+
+                peerSocket.send(new DatagramPacket(replyBuf, replyLength, packet.getAddress(), packet.getPort()));
+            } catch (IOException e) {
+                if (peerSocket.isClosed()) return;
+                System.out.println("Bad peer request: " + e.getMessage());
+            } catch (RuntimeException | StackOverflowError e) {
+                // a crafted packet must never kill the peer thread
+                System.out.println("Bad peer request: " + e);
+            }
+        }
+    }
+}
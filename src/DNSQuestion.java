@@ -1,4 +1,5 @@
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Objects;
@@ -23,7 +24,7 @@ public class DNSQuestion {
 
     // decode that supports compression pointers using the full message bytes
     public static DNSQuestion decodeQuestion(InputStream in, byte[] fullMessage) throws IOException {
-        String qname = readName(in, fullMessage);
+        String qname = readName(in, fullMessage, 0);
         int qType = readU16(in);
         int qClass = readU16(in);
         return new DNSQuestion(qname, qType, qClass);
@@ -34,10 +35,26 @@ public class DNSQuestion {
         throw new IOException("Use decodeQuestion(in, fullMessage) so compression works.");
     }
 
+    // write the question back in wire format (no compression), used by the peer cache
+    public void encodeQuestion(ByteArrayOutputStream out) {
+        if (!QName.isEmpty()) {
+            for (String label : QName.split("\\.")) {
+                byte[] bytes = label.getBytes();
+                out.write(bytes.length);
+                out.write(bytes, 0, bytes.length);
+            }
+        }
+        out.write(0);
+        out.write(QType >> 8);
+        out.write(QType);
+        out.write(QClass >> 8);
+        out.write(QClass);
+    }
+
     // we want to jump 12 bytes and read from there.
-    private static String readName(InputStream in, byte[] fullMessage) throws IOException {
+    // jumps counts pointers followed so far, so a pointer loop can not recurse forever
+    private static String readName(InputStream in, byte[] fullMessage, int jumps) throws IOException {
         StringBuilder sb = new StringBuilder();
-        int jumps = 0;
 
         while (true) {
             int b = readU8(in);
@@ -54,7 +71,7 @@ public class DNSQuestion {
                 // check of loop jump
                 if (++jumps > 20) throw new IOException("Too many compression jumps (possible loop)");
 
-                String suffix = readNameFromOffset(offset, fullMessage);
+                String suffix = readNameFromOffset(offset, fullMessage, jumps);
 
                 // add logic for . in www.example.com
                 if (sb.length() > 0 && suffix.length() > 0) sb.append('.');
@@ -74,10 +91,10 @@ public class DNSQuestion {
         return sb.toString();
     }
 
-    private static String readNameFromOffset(int offset, byte[] fullMessage) throws IOException {
+    private static String readNameFromOffset(int offset, byte[] fullMessage, int jumps) throws IOException {
         ByteArrayInputStream bin =
                 new ByteArrayInputStream(fullMessage, offset, fullMessage.length - offset);
-        return readName(bin, fullMessage);
+        return readName(bin, fullMessage, jumps);
     }
 
     private static int readU8(InputStream in) throws IOException {
@@ -45,7 +45,7 @@ public class DNSRecord {
     public static DNSRecord decodeRecord(InputStream in, byte[] fullMessage) throws IOException {
 
         // 1) NAME (variable length, may be a pointer that jumps elsewhere)
-        String name = readName(in, fullMessage);
+        String name = readName(in, fullMessage, 0);
 
         // 2) TYPE (2 bytes)
         int type = readU16(in);
@@ -77,7 +77,7 @@ public class DNSRecord {
      *   then NAME is actually 2 bytes: 0xC0 XX
      *   and the lower 14 bits are the offset into the message.
      */
-    private static String readName(InputStream in, byte[] fullMessage) throws IOException {
+    private static String readName(InputStream in, byte[] fullMessage, int jumps) throws IOException {
         StringBuilder sb = new StringBuilder();
 
         // Read the first byte of NAME
@@ -95,8 +95,11 @@ public class DNSRecord {
             // - remaining 6 bits of first byte + all 8 bits of second byte
             int offset = ((first & 0x3F) << 8) | second;
 
+            // check of loop jump, a pointer to itself would recurse forever
+            if (++jumps > 20) throw new IOException("Too many compression jumps (possible loop)");
+
             // Jump to that offset in the message and read the name from there
-            return readNameFromOffset(offset, fullMessage);
+            return readNameFromOffset(offset, fullMessage, jumps);
         }
 
         // Case B: NAME is NOT a pointer; then 'first' is the first label length
@@ -124,7 +127,8 @@ public class DNSRecord {
                 if (second < 0) throw new IOException("EOF while reading NAME pointer");
 
                 int offset = ((len & 0x3F) << 8) | second;
-                String suffix = readNameFromOffset(offset, fullMessage);
+                if (++jumps > 20) throw new IOException("Too many compression jumps (possible loop)");
+                String suffix = readNameFromOffset(offset, fullMessage, jumps);
 
                 // Append the suffix (avoid double dots)
                 if (sb.length() > 0 && suffix.length() > 0) sb.append('.');
@@ -153,12 +157,12 @@ public class DNSRecord {
      *
      * We create a new ByteArrayInputStream that starts at 'offset', then reuse readName.
      */
-    private static String readNameFromOffset(int offset, byte[] fullMessage) throws IOException {
+    private static String readNameFromOffset(int offset, byte[] fullMessage, int jumps) throws IOException {
         ByteArrayInputStream bin =
                 new ByteArrayInputStream(fullMessage, offset, fullMessage.length - offset);
 
         // This may encounter pointers again, so it’s recursive (safe in real packets)
-        return readName(bin, fullMessage);
+        return readName(bin, fullMessage, jumps);
     }
 
     /**
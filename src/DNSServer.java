@@ -1,139 +1,525 @@
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 // read a bytearray as an input stream
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 
 public class DNSServer {
+    // how long we wait for google before giving up on one query
+    private static final int UPSTREAM_TIMEOUT_MS = 2000;
+
+    // misses waiting for a worker, when full we shed load
+    private static final int MISS_QUEUE_CAPACITY = 256;
+
+    // threads that talk to google, hits never use these
+    private static final int MISS_WORKERS = 4;
+
+    // dig gives up and retries after a few seconds, no point answering after that
+    private static final long MISS_DEADLINE_MS = 3000;
+
+    // serve-stale (RFC 8767): how long we wait for google before answering with stale data
+    private static final int CLIENT_RESPONSE_TIMER_MS = 1800;
+
+    // TTL we hand out with stale answers so clients ask again soon
+    private static final long STALE_TTL_SECONDS = 30;
+
+    // after a failed refresh, answer stale straight away for this long
+    private static final long FAILURE_RECHECK_MS = 30000;
+
+    // keep expired entries for a day so an upstream outage does not empty the cache
+    public static final long DEFAULT_STALE_WINDOW_SECONDS = 86400;
+
+    // threads that refresh stale entries, separate from the miss workers
+    private static final int REFRESH_THREADS = 2;
+
+    // peers are on the same network, if they are slower than this go to google
+    private static final int PEER_TIMEOUT_MS = 50;
+
+    // per-packet logging, off by default so cache hits do not build strings
+    private static final boolean VERBOSE = Boolean.getBoolean("msdns.verbose");
+
+    // what to do with a miss when the queue is full
+    public enum ShedPolicy { SERVFAIL, DROP }
+
     private final int port;
+    private final ShedPolicy shedPolicy;
     // add cache
-    private final DNSCache cache = new DNSCache();
+    private final DNSCache cache;
+
+    // optional peer cache tier, null when running alone
+    private DNSPeerCache peerCache;
+
+    // bounded queue so a slow upstream can not eat all our memory
+    private final BlockingQueue<PendingQuery> missQueue = new ArrayBlockingQueue<>(MISS_QUEUE_CAPACITY);
+
+    // background refreshes of stale entries, at most one per name
+    private final ConcurrentHashMap<DNSCache.QuestionKey, CompletableFuture<byte[]>> refreshes =
+            new ConcurrentHashMap<>();
+    private final ExecutorService refreshExecutor = Executors.newFixedThreadPool(REFRESH_THREADS, r -> {
+        Thread t = new Thread(r, "stale-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // metrics for the scheduler
+    private final AtomicLong missesQueued = new AtomicLong();
+    private final AtomicLong missesShed = new AtomicLong();
+    private final AtomicLong missesExpired = new AtomicLong();
+
+    // only touched by the receive thread
+    private long lastShedLogMillis;
 
     public DNSServer(int port) {
+        this(port, ShedPolicy.SERVFAIL);
+    }
+
+    public DNSServer(int port, ShedPolicy shedPolicy) {
+        this(port, shedPolicy, DEFAULT_STALE_WINDOW_SECONDS);
+    }
+
+    public DNSServer(int port, ShedPolicy shedPolicy, long staleWindowSeconds) {
         this.port = port;
+        this.shedPolicy = shedPolicy;
+        this.cache = new DNSCache(staleWindowSeconds);
+    }
+
+    /**
+     * Share the cache with other instances. Call before run().
+     *
+     * @param self  address the other instances use to reach our peer port
+     * @param peers every instance in the group (self may be included)
+     * @param pushSecret shared key to sign answers pushed to owners, null to not push
+     */
+    public void enablePeerCache(InetSocketAddress self, List<InetSocketAddress> peers, byte[] pushSecret) {
+        this.peerCache = new DNSPeerCache(cache, self, peers, PEER_TIMEOUT_MS, pushSecret);
     }
 
     public void run() throws Exception{
         try (DatagramSocket socket = new DatagramSocket(port, InetAddress.getByName("127.0.0.1"))) {
             System.out.println("MSDNS listing oh UDP port " + port);
 
+            if (peerCache != null) {
+                // listen only on the address we gave the other instances, not every interface
+                DatagramSocket peerSocket = new DatagramSocket(peerCache.getSelf());
+                Thread peerThread = new Thread(() -> peerCache.serve(peerSocket), "peer-cache");
+                peerThread.setDaemon(true);
+                peerThread.start();
+                System.out.println("Peer cache listening on UDP " + peerCache.getSelf());
+            }
+
+            // start the workers that resolve misses
+            for (int i = 0; i < MISS_WORKERS; i++) {
+                Thread worker = new Thread(() -> missWorkerLoop(socket), "miss-worker-" + i);
+                worker.setDaemon(true);
+                worker.start();
+            }
+
             // message size
             byte[] buf = new byte[512];
+            DatagramPacket packet = new DatagramPacket(buf, buf.length);
+
+            // reused for every cache hit
+            DatagramPacket hitPacket = new DatagramPacket(new byte[512], 512);
+            DNSCache.QuestionKey hitKey = new DNSCache.QuestionKey();
 
             while (true) {
-                System.out.println("waiting for paket...");
-                DatagramPacket packet = new DatagramPacket(buf, buf.length);
+                if (VERBOSE) System.out.println("waiting for paket...");
+                packet.setLength(buf.length); // receive shrinks it to the last packet
                 socket.receive(packet);
-                System.out.println("Got One");
+                if (VERBOSE) System.out.println("Got One");
 
                 InetAddress clientAddress = packet.getAddress();
                 int clientPort = packet.getPort();
 
+                // hits are cheap so answer them right here, straight from the receive buffer
+                boolean keyed = hitKey.wrapQuestion(buf, packet.getLength());
+                if (keyed) {
+                    DNSCache.CacheEntry cached = cache.get(hitKey);
+                    if (cached != null) {
+                        sendCached(socket, hitPacket, cached, buf, clientAddress, clientPort);
+                        if (VERBOSE) System.out.println("Replied from cache");
+                        continue; // skip google not we get data straight from memory
+                    }
+                }
 
+                // google failed to refresh this name recently, do not make the client wait again
+                DNSCache.CacheEntry stale = keyed ? cache.getStale(hitKey) : null;
+                if (stale != null
+                        && System.currentTimeMillis() - stale.refreshFailedAtMillis < FAILURE_RECHECK_MS) {
+                    replyStale(socket, hitPacket, stale, buf, clientAddress, clientPort);
+                    continue;
+                }
 
-                // old line
-                // ByteArrayInputStream in = new ByteArrayInputStream(packet.getData(), 0, packet.getLength());
-
-                // copy requestBytes
+                // copy requestBytes, decoding and logging the miss is the worker's job
                 byte[] requestBytes = new byte[packet.getLength()];
                 // faster loop I learned from server tutorial
                 System.arraycopy(packet.getData(), packet.getOffset(), requestBytes, 0, packet.getLength());
 
-                // decode request With DNSMessage
-               DNSMessage requestMsg = DNSMessage.decodeMessage(requestBytes);
+                // misses go to the workers with a deadline
+                long receivedAt = System.currentTimeMillis();
+                PendingQuery pending = new PendingQuery(
+                        requestBytes,
+                        clientAddress,
+                        clientPort,
+                        receivedAt,
+                        receivedAt + MISS_DEADLINE_MS
+                );
+
+                if (missQueue.offer(pending)) {
+                    missesQueued.incrementAndGet();
+                    if (VERBOSE) System.out.println("Queued miss, queue depth=" + missQueue.size());
+                } else if (stale != null) {
+                    // queue is full but stale data beats shedding
+                    missesShed.incrementAndGet();
+                    replyStale(socket, hitPacket, stale, requestBytes, clientAddress, clientPort);
+                    logShedding();
+                } else {
+                    // queue is full, upstream is too slow to keep up
+                    missesShed.incrementAndGet();
+                    if (shedPolicy == ShedPolicy.SERVFAIL) {
+                        byte[] servfail = buildServfail(requestBytes);
+                        socket.send(new DatagramPacket(servfail, servfail.length, clientAddress, clientPort));
+                    }
+                    logShedding();
+                }
+
+                if (VERBOSE) System.out.println("Received " + requestBytes.length + "bytes from " + clientAddress.getHostAddress() + ";" + clientPort);
+            }
+
+        }
+    }
+
+    // at most one shed line per second, the receive thread must not spend its time logging
+    private void logShedding() {
+        long now = System.currentTimeMillis();
+        if (now - lastShedLogMillis >= 1000) {
+            lastShedLogMillis = now;
+            System.out.println("Miss queue full, shedding with " + shedPolicy + " " + schedulerStats());
+        }
+    }
+
+    // all scheduler counters in one line so the log shows them together
+    private String schedulerStats() {
+        return "[depth=" + missQueue.size()
+                + " queued=" + missesQueued.get()
+                + " shed=" + missesShed.get()
+                + " expired=" + missesExpired.get() + "]";
+    }
+
+    // send cached answer with the client's ID and fresh TTLs, returns false on miss
+    // sendPacket is owned by the calling thread and its buffer is overwritten
+    private boolean replyFromCache(DatagramSocket socket, DatagramPacket sendPacket, DNSQuestion question,
+                                   byte[] requestBytes, InetAddress clientAddress, int clientPort) throws IOException {
+        DNSCache.CacheEntry cached = cache.get(question);
+        if (cached == null) {
+            return false;
+        }
+        System.out.println("CACHE HIT for " + question.getQName());
+
+        sendCached(socket, sendPacket, cached, requestBytes, clientAddress, clientPort);
+        System.out.println("Replied from cache");
+        return true;
+    }
+
+    // copy the entry into sendPacket's buffer with the request ID and counted-down TTLs
+    private void sendCached(DatagramSocket socket, DatagramPacket sendPacket, DNSCache.CacheEntry cached,
+                            byte[] requestBytes, InetAddress clientAddress, int clientPort) throws IOException {
+        byte[] out = sendPacket.getData();
+        int length = cached.writeResponse(out, requestBytes);
+        sendPacket.setData(out, 0, length);
+        sendPacket.setAddress(clientAddress);
+        sendPacket.setPort(clientPort);
+        socket.send(sendPacket);
+    }
+
+    // send an expired entry with a short TTL, used when google is slow or down
+    private void replyStale(DatagramSocket socket, DatagramPacket sendPacket, DNSCache.CacheEntry stale,
+                            byte[] requestBytes, InetAddress clientAddress, int clientPort) throws IOException {
+        byte[] out = sendPacket.getData();
+        int length = stale.writeStaleResponse(out, requestBytes, STALE_TTL_SECONDS);
+        sendPacket.setData(out, 0, length);
+        sendPacket.setAddress(clientAddress);
+        sendPacket.setPort(clientPort);
+        socket.send(sendPacket);
+        if (VERBOSE) System.out.println("Replied STALE");
+    }
+
+    // each worker takes misses from the queue and relays them to google
+    private void missWorkerLoop(DatagramSocket socket) {
+        // this worker's own send buffer for cache hits
+        DatagramPacket hitPacket = new DatagramPacket(new byte[512], 512);
+
+        while (true) {
+            PendingQuery pending;
+            try {
+                pending = missQueue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            // client already gave up, do not waste google's time
+            long remaining = pending.deadlineMillis - System.currentTimeMillis();
+            if (remaining <= 0) {
+                missesExpired.incrementAndGet();
+                System.out.println("Dropped expired miss " + schedulerStats());
+                continue;
+            }
+
+            try {
+                // decode request With DNSMessage, here and not on the receive thread
+                DNSMessage requestMsg = DNSMessage.decodeMessage(pending.requestBytes);
                 System.out.println("Parsed request message: " + requestMsg);
+                if (requestMsg.questions.length == 0) {
+                    continue;
+                }
 
                 // still need question for cache
-                DNSQuestion question = requestMsg.questions[0];
-                System.out.println("Parsed question: " + question);
-
-                DNSCache.CacheEntry cached = cache.get(question);
-                if (cached != null) {
-                    System.out.println("CACHE HIT for " + question.getQName());
-
-                    byte[] response = cached.responseBytes.clone();
-                    response[0] = requestBytes[0];
-                    response[1] = requestBytes[1];
-
-                    DatagramPacket back = new DatagramPacket(
-                            response,
-                            response.length,
-                            clientAddress,
-                            clientPort
-                    );
-                    socket.send(back);
-                    System.out.println("Replied from cache");
-                    continue; // skip google not we get data straight from memory
-
-                    // used for check to assign cache
-                } else {
-                    System.out.println("CACHE MISS for " + question.getQName());
+                pending.question = requestMsg.questions[0];
+                System.out.println("CACHE MISS for " + pending.question.getQName());
+
+                // another worker may have filled the cache while this one waited
+                if (replyFromCache(socket, hitPacket, pending.question, pending.requestBytes,
+                        pending.clientAddress, pending.clientPort)) {
+                    continue;
                 }
 
-                int packetLength = requestBytes.length;
-
-                // relay on Google DNS (8.8.8.8) and  send request back to client
-                try (DatagramSocket googleSocket = new DatagramSocket()) {
-                    googleSocket.setSoTimeout(2000); // wait 2 sec
-
-                    InetAddress googleAddress = InetAddress.getByName("8.8.8.8");
-                    int googlePort = 53;
-
-                    // forward the original bytes we received from dig
-                    DatagramPacket toGoogle = new DatagramPacket(
-                            requestBytes,
-                            requestBytes.length,
-                            googleAddress,
-                            googlePort
-                    );
-                    googleSocket.send(toGoogle);
-
-                    // receive google's response
-                    byte[] googleBuf = new byte[512];
-                    DatagramPacket fromGoogle = new DatagramPacket(googleBuf, googleBuf.length);
-                    googleSocket.receive(fromGoogle);
-
-                    System.out.println("Got " + fromGoogle.getLength() + "bytes from google");
-
-                    // Now we copy exact response bytes
-                    byte[] googleBytes = new byte[fromGoogle.getLength()];
-                    System.arraycopy(fromGoogle.getData(), 0, googleBytes, 0,fromGoogle.getLength());
-
-                    try {
-                        DNSMessage googleMsg = DNSMessage.decodeMessage(googleBytes);
-
-                        // cache only fisrt answer record
-                        if (googleMsg.answers.length > 0) {
-                            DNSRecord firstAnswer = googleMsg.answers[0];
-
-                            cache.put(question, googleBytes, firstAnswer.ttl);
-                            System.out.println("Stored in cache: " + firstAnswer);
-                        } else {
-                            System.out.println("Google response has 0 answers: not caching.");
-                        }
-                    } catch (Exception e) {
-                        System.out.println("Failed to parse Google response for cache: " + e.getMessage());
-                    }
+                // ask the peer that owns this name before going to google
+                if (peerCache != null && peerCache.fetchFromPeer(pending.question)
+                        && replyFromCache(socket, hitPacket, pending.question, pending.requestBytes,
+                        pending.clientAddress, pending.clientPort)) {
+                    continue;
+                }
+
+                resolveUpstream(socket, hitPacket, pending, (int) Math.min(UPSTREAM_TIMEOUT_MS, remaining));
+            } catch (IOException e) {
+                System.out.println("Failed to resolve " + pending.question + ": " + e.getMessage());
+            } catch (RuntimeException e) {
+                // requests are decoded here now, a malformed one must not kill the worker
+                System.out.println("Bad request dropped: " + e);
+            }
+        }
+    }
+
+    private void resolveUpstream(DatagramSocket socket, DatagramPacket sendPacket, PendingQuery pending,
+                                 int timeoutMs) throws IOException {
+        // we have stale data: refresh in the background and only make the client wait for the timer
+        DNSCache.CacheEntry stale = cache.getStale(pending.question);
+        if (stale != null) {
+            answerWithRefreshOrStale(socket, sendPacket, pending, stale, timeoutMs);
+            return;
+        }
+
+        try {
+            byte[] googleBytes = queryUpstream(pending.question, pending.requestBytes, timeoutMs);
+
+            // send response back to the original client
+            DatagramPacket backToClient = new DatagramPacket(
+                    googleBytes,
+                    googleBytes.length,
+                    pending.clientAddress,
+                    pending.clientPort
+            );
+            socket.send(backToClient);
+            System.out.println("Relayed response back to client");
+        } catch (SocketTimeoutException e) {
+            System.out.println("Timed out waiting for google DNS response");
+        }
+    }
 
-                    // send response back to the original client
-                    DatagramPacket backToClient = new DatagramPacket(
-                            googleBytes,
-                            googleBytes.length,
-                            clientAddress,
-                            clientPort
-                    );
-                    socket.send(backToClient);
-                    System.out.println("Relayed response back to client");
-                } catch (SocketTimeoutException e) {
-                    System.out.println("Timed out waiting for google DNS response");
+    /**
+     * Serve-stale path. Starts one refresh per name on the refresh threads (or joins the
+     * one already running), waits until the client response timer runs out, counted from
+     * when the query arrived, and answers with the fresh response or else the stale entry.
+     * The worker never waits for the rest of the refresh, so a google outage can not tie
+     * up the miss workers.
+     */
+    private void answerWithRefreshOrStale(DatagramSocket socket, DatagramPacket sendPacket, PendingQuery pending,
+                                          DNSCache.CacheEntry stale, int timeoutMs) throws IOException {
+        DNSCache.QuestionKey key = DNSCache.QuestionKey.of(pending.question);
+
+        CompletableFuture<byte[]> refresh = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = refreshes.putIfAbsent(key, refresh);
+        if (running != null
+                || System.currentTimeMillis() - stale.refreshFailedAtMillis < FAILURE_RECHECK_MS) {
+            // someone else already asked google for this name, or it just failed, do not pile on
+            if (running == null) {
+                refreshes.remove(key, refresh);
+            }
+            replyStale(socket, sendPacket, stale, pending.requestBytes,
+                    pending.clientAddress, pending.clientPort);
+            return;
+        }
+
+        refreshExecutor.execute(() -> {
+            try {
+                byte[] fresh = queryUpstream(pending.question, pending.requestBytes, UPSTREAM_TIMEOUT_MS);
+
+                // SERVFAIL or REFUSED is no better than no answer, keep serving stale (RFC 8767)
+                int rcode = fresh.length > 3 ? fresh[3] & 0x0F : 2;
+                if (rcode == 2 || rcode == 5) {
+                    throw new IOException("google answered rcode " + rcode);
                 }
+                refresh.complete(fresh);
+                System.out.println("Refreshed stale entry for " + pending.question.getQName());
+            } catch (IOException e) {
+                // timeout, unreachable network, anything: answer stale straight away for a while
+                System.out.println("Refresh failed for " + pending.question.getQName() + ": " + e.getMessage());
+                stale.refreshFailedAtMillis = System.currentTimeMillis();
+                refresh.completeExceptionally(e);
+            } finally {
+                refreshes.remove(key, refresh);
+            }
+        });
+
+        // the timer started when the query arrived, queue and peer time already count
+        long waitMs = Math.min(pending.receivedAtMillis + CLIENT_RESPONSE_TIMER_MS - System.currentTimeMillis(),
+                timeoutMs);
+
+        byte[] fresh = null;
+        try {
+            // time already up: only take a refresh that is already done, stale otherwise
+            fresh = waitMs > 0 ? refresh.get(waitMs, TimeUnit.MILLISECONDS) : refresh.getNow(null);
+        } catch (TimeoutException | ExecutionException | CompletionException e) {
+            // fall through to stale
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
 
-                System.out.println("Received " + packetLength + "bytes from " + clientAddress.getHostAddress() + ";" + clientPort);
+        if (fresh == null) {
+            replyStale(socket, sendPacket, stale, pending.requestBytes,
+                    pending.clientAddress, pending.clientPort);
+            return;
+        }
+
+        // fresh answer is shared with the cache, so patch the ID in our own send buffer
+        byte[] out = sendPacket.getData();
+        System.arraycopy(fresh, 0, out, 0, fresh.length);
+        out[0] = pending.requestBytes[0];
+        out[1] = pending.requestBytes[1];
+        sendPacket.setData(out, 0, fresh.length);
+        sendPacket.setAddress(pending.clientAddress);
+        sendPacket.setPort(pending.clientPort);
+        socket.send(sendPacket);
+        System.out.println("Relayed refreshed response back to client");
+    }
+
+    // relay on Google DNS (8.8.8.8), cache the answer and return google's bytes
+    private byte[] queryUpstream(DNSQuestion question, byte[] requestBytes, int timeoutMs) throws IOException {
+        try (DatagramSocket googleSocket = new DatagramSocket()) {
+            googleSocket.setSoTimeout(timeoutMs); // never wait past the deadline
+
+            InetAddress googleAddress = InetAddress.getByName("8.8.8.8");
+            int googlePort = 53;
+
+            // forward the original bytes we received from dig
+            DatagramPacket toGoogle = new DatagramPacket(
+                    requestBytes,
+                    requestBytes.length,
+                    googleAddress,
+                    googlePort
+            );
+            googleSocket.send(toGoogle);
+
+            // receive google's response
+            byte[] googleBuf = new byte[512];
+            DatagramPacket fromGoogle = new DatagramPacket(googleBuf, googleBuf.length);
+            googleSocket.receive(fromGoogle);
+
+            System.out.println("Got " + fromGoogle.getLength() + "bytes from google");
+
+            // Now we copy exact response bytes
+            byte[] googleBytes = new byte[fromGoogle.getLength()];
+            System.arraycopy(fromGoogle.getData(), 0, googleBytes, 0,fromGoogle.getLength());
+
+            try {
+                DNSMessage googleMsg = DNSMessage.decodeMessage(googleBytes);
+
+                // cache only fisrt answer record
+                if (googleMsg.answers.length > 0) {
+                    DNSRecord firstAnswer = googleMsg.answers[0];
+
+                    cache.put(question, googleBytes, firstAnswer.ttl);
+                    System.out.println("Stored in cache: " + firstAnswer);
+
+                    // hand it to the peer that owns this name so the next miss finds it there
+                    if (peerCache != null) {
+                        peerCache.pushToOwner(question, googleBytes, firstAnswer.ttl);
+                    }
+                } else {
+                    System.out.println("Google response has 0 answers: not caching.");
+                }
+            } catch (Exception e) {
+                System.out.println("Failed to parse Google response for cache: " + e.getMessage());
             }
 
+            return googleBytes;
+        }
+    }
+
+    /**
+     * Build a SERVFAIL reply from the request: same ID and question,
+     * QR bit set, RCODE=2 and no answer/authority/additional records.
+     */
+    static byte[] buildServfail(byte[] requestBytes) {
+        // keep header + first question only, drop anything after it (EDNS etc.)
+        int end = 12;
+        while (end < requestBytes.length) {
+            int len = requestBytes[end] & 0xFF;
+            if (len == 0) { end += 1; break; }
+            if ((len & 0xC0) == 0xC0) { end += 2; break; }
+            end += 1 + len;
+        }
+        end = Math.min(end + 4, requestBytes.length); // QTYPE + QCLASS
+
+        byte[] response = new byte[end];
+        System.arraycopy(requestBytes, 0, response, 0, end);
+
+        response[2] = (byte) ((response[2] & 0x01) | 0x80); // QR=1, keep RD
+        response[3] = (byte) 0x82;                          // RA=1, RCODE=2 SERVFAIL
+
+        // QDCOUNT=1, everything else 0
+        response[4] = 0;
+        response[5] = 1;
+        for (int i = 6; i < 12; i++) {
+            response[i] = 0;
+        }
+        return response;
+    }
+
+    // a cache miss waiting for a worker
+    private static class PendingQuery {
+        final byte[] requestBytes;
+        final InetAddress clientAddress;
+        final int clientPort;
+        final long receivedAtMillis;
+        final long deadlineMillis;
+        // decoded by the worker that takes the query
+        DNSQuestion question;
+
+        PendingQuery(byte[] requestBytes, InetAddress clientAddress,
+                     int clientPort, long receivedAtMillis, long deadlineMillis) {
+            this.requestBytes = requestBytes;
+            this.clientAddress = clientAddress;
+            this.clientPort = clientPort;
+            this.receivedAtMillis = receivedAtMillis;
+            this.deadlineMillis = deadlineMillis;
         }
     }
 }
@@ -1,7 +1,64 @@
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Main {
+    private static final String USAGE =
+            "usage: Main [dnsPort] [selfHost:peerPort peerHost:peerPort ...]";
+
+    // the first peer address is this instance, the rest are the other resolvers
     public static void main (String[] args) throws Exception{
-        DNSServer server = new DNSServer(8053);
+        int port = args.length > 0 ? parsePort(args[0]) : 8053;
+        DNSServer server = new DNSServer(port);
+
+        if (args.length > 1) {
+            List<InetSocketAddress> peers = new ArrayList<>();
+            for (int i = 1; i < args.length; i++) {
+                peers.add(parseAddress(args[i]));
+            }
+            // shared secret for signed pushes comes from the environment, not the command line
+            String secret = System.getenv("MSDNS_PEER_SECRET");
+            server.enablePeerCache(peers.get(0), peers,
+                    secret != null ? secret.getBytes(StandardCharsets.UTF_8) : null);
+        }
+
         server.run();
     }
-}
\ No newline at end of file
+
+    private static InetSocketAddress parseAddress(String hostPort) {
+        int colon = hostPort.lastIndexOf(':');
+        if (colon <= 0 || colon == hostPort.length() - 1) {
+            usageAndExit("expected host:port but got '" + hostPort + "'");
+        }
+        String host = hostPort.substring(0, colon);
+        int port = parsePort(hostPort.substring(colon + 1));
+        try {
+            return new InetSocketAddress(InetAddress.getByName(host), port);
+        } catch (UnknownHostException e) {
+            usageAndExit("unknown host '" + host + "'");
+            return null; // not reached
+        }
+    }
+
+    private static int parsePort(String text) {
+        try {
+            int port = Integer.parseInt(text);
+            if (port < 1 || port > 65535) {
+                usageAndExit("port out of range: " + text);
+            }
+            return port;
+        } catch (NumberFormatException e) {
+            usageAndExit("not a port number: '" + text + "'");
+            return -1; // not reached
+        }
+    }
+
+    private static void usageAndExit(String problem) {
+        System.err.println(problem);
+        System.err.println(USAGE);
+        System.exit(2);
+    }
+}
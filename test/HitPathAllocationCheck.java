@@ -0,0 +1,70 @@
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that answering a cache hit does not allocate.
+ * Runs the same steps the receive thread does on a hit (QuestionKey.wrapQuestion,
+ * DNSCache.get, CacheEntry.writeResponse) many times and reads how many bytes this
+ * thread allocated with ThreadMXBean.
+ *
+ * Run from the project folder:
+ *   javac -encoding UTF-8 -d out src/*.java test/*.java
+ *   java -cp out HitPathAllocationCheck
+ */
+public class HitPathAllocationCheck {
+    private static final int WARMUP_ROUNDS = 200_000;
+    private static final int MEASURED_ROUNDS = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        // query for example.com A with id 0x0707, and a cached answer for it
+        byte[] request = {7, 7, 1, 0, 0, 1, 0, 0, 0, 0, 0, 0,
+                7, 'e', 'x', 'a', 'm', 'p', 'l', 'e', 3, 'c', 'o', 'm', 0, 0, 1, 0, 1};
+        byte[] response = {0, 1, (byte) 0x81, (byte) 0x80, 0, 1, 0, 1, 0, 0, 0, 0,
+                7, 'e', 'x', 'a', 'm', 'p', 'l', 'e', 3, 'c', 'o', 'm', 0, 0, 1, 0, 1,
+                (byte) 0xC0, 12, 0, 1, 0, 1, 0, 0, 0x0E, 0x10, 0, 4, 93, (byte) 184, (byte) 216, 34};
+
+        DNSCache cache = new DNSCache();
+        cache.put(DNSMessage.decodeMessage(request).questions[0], response, 3600);
+
+        DNSCache.QuestionKey key = new DNSCache.QuestionKey();
+        byte[] out = new byte[512];
+
+        // let the JIT compile the hit path first
+        long sink = runHits(cache, key, request, out, WARMUP_ROUNDS);
+
+        // cost of the measurement itself, subtracted below
+        long before = threads.getThreadAllocatedBytes(threadId);
+        long overhead = threads.getThreadAllocatedBytes(threadId) - before;
+
+        before = threads.getThreadAllocatedBytes(threadId);
+        sink += runHits(cache, key, request, out, MEASURED_ROUNDS);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+
+        System.out.println("hits=" + MEASURED_ROUNDS + " allocatedBytes=" + allocated
+                + " bytesPerHit=" + ((double) allocated / MEASURED_ROUNDS) + " (sink " + sink + ")");
+
+        if (allocated > 0) {
+            System.out.println("FAIL: cache hit path allocates");
+            System.exit(1);
+        }
+        System.out.println("OK: cache hit path does not allocate");
+    }
+
+    private static long runHits(DNSCache cache, DNSCache.QuestionKey key, byte[] request, byte[] out, int rounds) {
+        long total = 0;
+        for (int i = 0; i < rounds; i++) {
+            if (!key.wrapQuestion(request, request.length)) {
+                throw new IllegalStateException("request did not key");
+            }
+            DNSCache.CacheEntry cached = cache.get(key);
+            if (cached == null) {
+                throw new IllegalStateException("expected a cache hit");
+            }
+            total += cached.writeResponse(out, request);
+        }
+        return total;
+    }
+}
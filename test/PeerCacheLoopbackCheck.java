@@ -0,0 +1,101 @@
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Starts three DNSPeerCache instances on 127.0.0.1 and checks the peer tier:
+ * a miss at the owner, a peer hit that keeps the owner's remaining TTL, and a
+ * signed push that lands on the owner.
+ *
+ * Run from the project folder:
+ *   javac -encoding UTF-8 -d out src/*.java test/*.java
+ *   java -cp out PeerCacheLoopbackCheck
+ */
+public class PeerCacheLoopbackCheck {
+    private static final int BASE_PORT = 19101;
+    private static final byte[] SECRET = "loopback-check".getBytes();
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        InetAddress loopback = InetAddress.getByName("127.0.0.1");
+
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            peers.add(new InetSocketAddress(loopback, BASE_PORT + i));
+        }
+
+        DNSCache[] caches = new DNSCache[3];
+        DNSPeerCache[] instances = new DNSPeerCache[3];
+        for (int i = 0; i < 3; i++) {
+            caches[i] = new DNSCache();
+            instances[i] = new DNSPeerCache(caches[i], peers.get(i), peers, 200, SECRET);
+
+            DatagramSocket peerSocket = new DatagramSocket(instances[i].getSelf());
+            DNSPeerCache instance = instances[i];
+            Thread listener = new Thread(() -> instance.serve(peerSocket), "peer-" + i);
+            listener.setDaemon(true);
+            listener.start();
+        }
+
+        // answer for example.com A, record TTL 3600
+        byte[] response = {0, 1, (byte) 0x81, (byte) 0x80, 0, 1, 0, 1, 0, 0, 0, 0,
+                7, 'e', 'x', 'a', 'm', 'p', 'l', 'e', 3, 'c', 'o', 'm', 0, 0, 1, 0, 1,
+                (byte) 0xC0, 12, 0, 1, 0, 1, 0, 0, 0x0E, 0x10, 0, 4, 93, (byte) 184, (byte) 216, 34};
+        DNSQuestion question = DNSMessage.decodeMessage(response).questions[0];
+
+        // every instance must agree on the owner
+        int owner = peers.indexOf(instances[0].ownerOf(question));
+        for (DNSPeerCache instance : instances) {
+            check("all instances agree on the owner", peers.indexOf(instance.ownerOf(question)) == owner);
+        }
+        int asker = (owner + 1) % 3;
+
+        // 1) owner does not have it yet: peer miss
+        check("miss when the owner has nothing", !instances[asker].fetchFromPeer(question));
+
+        // 2) owner has it with 100s left: asker gets a hit and keeps the remaining TTL, not 3600
+        caches[owner].put(question, response, 100);
+        check("hit from the owner", instances[asker].fetchFromPeer(question));
+        DNSCache.CacheEntry fetched = caches[asker].get(question);
+        check("peer answer stored locally", fetched != null);
+        check("owner's remaining TTL kept (got " + (fetched != null ? fetched.ttlSeconds : -1) + ")",
+                fetched != null && fetched.ttlSeconds >= 99 && fetched.ttlSeconds <= 100);
+
+        byte[] out = new byte[512];
+        fetched.writeResponse(out, new byte[]{0, 0});
+        long recordTtl = ((out[35] & 0xFFL) << 24) | ((out[36] & 0xFFL) << 16)
+                | ((out[37] & 0xFFL) << 8) | (out[38] & 0xFFL);
+        check("record TTL counted down to the owner's expiry (got " + recordTtl + ")", recordTtl <= 100);
+
+        // 3) a signed push from a non-owner fills an owner that was empty
+        DNSQuestion other = DNSMessage.decodeMessage(withName(response, 'f')).questions[0];
+        int otherOwner = peers.indexOf(instances[0].ownerOf(other));
+        int pusher = (otherOwner + 1) % 3;
+        instances[pusher].pushToOwner(other, withName(response, 'f'), 300);
+        Thread.sleep(200);
+        check("signed push stored on the owner", caches[otherOwner].get(other) != null);
+        check("third instance gets a peer hit after the push",
+                instances[(otherOwner + 2) % 3].fetchFromPeer(other));
+
+        if (failures > 0) {
+            System.out.println("FAIL: " + failures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("OK: peer cache works across " + peers.size() + " loopback instances");
+    }
+
+    // same response with the first letter of the name swapped, so it hashes to some other owner
+    private static byte[] withName(byte[] response, char first) {
+        byte[] copy = response.clone();
+        copy[13] = (byte) first;
+        return copy;
+    }
+
+    private static void check(String what, boolean ok) {
+        System.out.println((ok ? "ok   " : "FAIL ") + what);
+        if (!ok) failures++;
+    }
+}